@@ -9,12 +9,63 @@ import java.util.concurrent.*;
 public class Console implements Runnable {
 
     /**
-     * @param args are ignored.
+     * Starts the interactive console, or solves a single Sudoku and exits when
+     * given the arguments <code>solve [file]</code>. Without a file, or with
+     * the file "-", the Sudoku is read from standard input. The arguments
+     * <code>batch</code> and <code>worker</code> solve a whole corpus across
+     * several processes, see {@link Coordinator} and {@link Worker}.
+     *
+     * @param args the command-line arguments.
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            switch (args[0].toLowerCase()) {
+                case "batch":
+                    System.exit(Coordinator.batch(args));
+                    break;
+                case "worker":
+                    System.exit(Worker.work(args));
+                    break;
+                default:
+                    System.exit(solveOnce(args));
+            }
+        }
         Executor exec = Executors.newSingleThreadExecutor();
         exec.execute(new Console("./problem.txt", "./save.txt", "./solution.txt"));
     }
+
+    /**
+     * Solves a single Sudoku without prompting and prints the result. Kept
+     * free of the interactive machinery, so a cold run only loads the classes
+     * it needs.
+     *
+     * @param args the command-line arguments.
+     * @return 0 if the Sudoku was solved, 1 if it was not, and 2 on bad usage
+     * or unreadable input.
+     */
+    private static int solveOnce(String[] args) {
+        if (args.length > 2 || !args[0].equalsIgnoreCase("solve")) {
+            System.err.println("Usage: sudoku [solve [file|-] | batch <corpus> [workers [shard-size [timeout-seconds]]] | worker <host> <port> [id]]");
+            return 2;
+        }
+        Sudoku s;
+        try {
+            if (args.length == 1 || args[1].equals("-")) {
+                s = new Sudoku(new BufferedReader(new InputStreamReader(System.in)));
+            } else {
+                try (BufferedReader reader = new BufferedReader(new FileReader(args[1]))) {
+                    s = new Sudoku(reader);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not read Sudoku: " + ex);
+            return 2;
+        }
+        s.solveAll();
+        System.out.print(s);
+        System.out.flush();
+        return s.finished() ? 0 : 1;
+    }
     private final BufferedReader input;
     private final Sudoku s;
     private final String templatePath;
@@ -60,6 +111,7 @@ public class Console implements Runnable {
             System.out.println(" - Try to [field] solve the Sudoku.");
             System.out.println(" - Try to [char] solve the Sudoku.");
             System.out.println(" - Try to [solve] the Sudoku using all available methods.");
+            System.out.println(" - [search] for the solution, learning from dead ends.");
             System.out.println(" - [get] the possible chars for a field.");
             System.out.println(" - [fill] out a field.");
             System.out.println(" - [show] your progress.");
@@ -79,6 +131,9 @@ public class Console implements Runnable {
                 case "solve":
                     System.out.println("solve() managed to fill out " + s.solve() + " fields");
                     break;                                        
+                case "search":
+                    search();
+                    break;
                 case "get":
                     getChars();
                     break;
@@ -130,6 +185,16 @@ public class Console implements Runnable {
         System.out.println("Save successfull.");
     }
 
+    /**
+     * Searches for the solution and reports how much searching it took.
+     */
+    public void search() {
+        System.out.printf("search() managed to fill out %d fields\n", s.search());
+        NogoodSearch search = s.getLastSearch();
+        System.out.printf("It tried %d branches, hit %d dead ends and kept %d nogoods.\n",
+                search.getNodes(), search.getConflicts(), search.getNogoods());
+    }
+
     /**
      * A dialog for getting the possible chars for a field.
      */
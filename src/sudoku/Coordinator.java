@@ -0,0 +1,594 @@
+package sudoku;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Splits a corpus of puzzles into shards and hands them to {@link Worker}
+ * processes over local sockets.
+ *
+ * The corpus is read one shard at a time by a thread of its own, which stays a
+ * couple of shards ahead of the workers, and faster workers take on more of it.
+ * Whenever no shard is left to hand out, an idle worker is given a copy of a
+ * shard which another worker has been busy with for more than twice the average
+ * time a shard takes, and whichever finishes first wins. Workers send back each
+ * result as soon as it is found, and a worker which goes longer than the
+ * timeout without one is dropped, and killed and replaced if it was started by
+ * the coordinator. A worker which dies or is dropped only loses the puzzle it
+ * was on, and the rest of its shard is handed out again. A puzzle which three
+ * workers have been lost on is written unsolved. Worker processes which die of
+ * their own accord are replaced, up to three times as many as were started. The
+ * results are written in the order of the corpus as soon as every shard before
+ * them is done. The reader stops while more than two shards for each connected
+ * worker are waiting to be written, so a slow shard does not make the finished
+ * shards behind it pile up in memory.
+ */
+public class Coordinator {
+
+    private static final int ATTEMPTS = 3;
+    private static final int REPLACEMENTS = 3;
+    private static final int AHEAD = 2;
+    private final BufferedReader corpus;
+    private final PrintStream output;
+    private final int shardSize;
+    private final long timeout;
+    private final ServerSocket server;
+    private final Map<Integer, Shard> open = new HashMap<>();
+    private final Deque<Shard> pending = new ArrayDeque<>();
+    private final Deque<Shard> fresh = new ArrayDeque<>();
+    private final List<Link> connections = new ArrayList<>();
+    private final Map<Integer, Process> processes = new HashMap<>();
+    private IOException failure;
+    private boolean exhausted;
+    private boolean closed;
+    private int read;
+    private int written;
+    private int unsolved;
+    private int finished;
+    private int active;
+    private int replacements;
+    private int ids;
+    private long busy;
+
+    /**
+     * Readies a coordinator for the given corpus, listening on a free local
+     * port.
+     *
+     * @param corpus the puzzles, one line of 81 fields each. Blank lines are
+     * skipped.
+     * @param out where to write the results, one line each.
+     * @param shardSize the number of puzzles to hand out at a time.
+     * @param timeout how long, in milliseconds, a worker may spend on a single
+     * puzzle before it is dropped.
+     * @throws IOException if no port could be opened.
+     */
+    public Coordinator(BufferedReader corpus, PrintStream out, int shardSize, long timeout) throws IOException {
+        this.corpus = corpus;
+        this.output = out;
+        this.shardSize = shardSize;
+        this.timeout = timeout;
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Solves the corpus given by the arguments <code>batch corpus [workers
+     * [shard-size [timeout]]]</code> and prints the results in order, one line
+     * each. By default there is a worker for each processor, shards of 64
+     * puzzles and a timeout of 60 seconds for each puzzle.
+     *
+     * @param args the command-line arguments.
+     * @return 0 if every puzzle was solved, 1 if some were not, and 2 on bad
+     * usage or failure.
+     */
+    public static int batch(String[] args) {
+        String usage = "Usage: sudoku batch <corpus> [workers [shard-size [timeout-seconds]]]";
+        if (args.length < 2 || args.length > 5) {
+            System.err.println(usage);
+            return 2;
+        }
+        try (BufferedReader corpus = new BufferedReader(new FileReader(args[1]))) {
+            int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            int shardSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+            long timeout = args.length > 4 ? Long.parseLong(args[4]) : 60;
+            if (workers < 1 || shardSize < 1 || timeout < 1) {
+                System.err.println(usage);
+                return 2;
+            }
+
+            PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+            Coordinator coordinator = new Coordinator(corpus, out, shardSize, timeout * 1000);
+            coordinator.spawn(workers);
+            return coordinator.await() == 0 ? 0 : 1;
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("Batch failed: " + ex);
+            return 2;
+        }
+    }
+
+    /**
+     * @return the port workers should connect to.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Starts worker processes on this machine, running the same classpath.
+     * Each may be replaced up to three times if workers die.
+     *
+     * @param count the number of workers.
+     * @throws IOException if a process could not be started.
+     */
+    public synchronized void spawn(int count) throws IOException {
+        replacements += REPLACEMENTS * count;
+        for (int i = 0; i < count; i++) {
+            start();
+        }
+    }
+
+    private void start() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        int id = ids++;
+        processes.put(id, new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Console.class.getName(), "worker", server.getInetAddress().getHostAddress(), "" + getPort(), "" + id)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start());
+    }
+
+    /**
+     * Accepts workers until every shard is done and written.
+     *
+     * @return the number of puzzles written which were not solved.
+     * @throws IOException if the corpus could not be read, or if, before the
+     * corpus is done, no worker is connected or still starting up, checked
+     * once a second.
+     */
+    public int await() throws IOException {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Link link = new Link(server.accept());
+                        synchronized (Coordinator.this) {
+                            connections.add(link);
+                            active++;
+                            // Lets the reader read further ahead.
+                            Coordinator.this.notifyAll();
+                        }
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(link);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException ex) {
+                    // The server socket was closed.
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            synchronized (this) {
+                while (!finished()) {
+                    try {
+                        wait(1000);
+                    } catch (InterruptedException ex) {
+                        throw new InterruptedIOException();
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    expire();
+                    replaceDead();
+                    if (!finished() && active == 0 && processes.isEmpty()) {
+                        throw new IOException("No workers left after " + written + " shards were written");
+                    }
+                }
+            }
+            return unsolved;
+        } finally {
+            server.close();
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+                for (Link link : connections) {
+                    link.socket.close();
+                }
+                for (Process process : processes.values()) {
+                    process.destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands shards to a connected worker until none are left, or the worker
+     * is lost.
+     *
+     * @param link the connection to the worker.
+     */
+    private void serve(Link link) {
+        Shard shard = null;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(link.socket.getInputStream(), "US-ASCII"));
+            Writer out = new BufferedWriter(new OutputStreamWriter(link.socket.getOutputStream(), "US-ASCII"));
+            // A worker which never says hello would otherwise count as
+            // connected forever.
+            link.socket.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("HELLO ")) {
+                throw new EOFException("Worker did not say hello");
+            }
+            link.socket.setSoTimeout(0);
+            int id = Integer.parseInt(hello.substring(6));
+            synchronized (this) {
+                link.process = processes.get(id);
+            }
+
+            while ((shard = next(link)) != null) {
+                int[] puzzles = link.puzzles;
+                out.write("SHARD " + shard.index + " " + puzzles.length + "\n");
+                for (int puzzle : puzzles) {
+                    out.write(shard.puzzles[puzzle] + "\n");
+                }
+                out.flush();
+
+                for (int i = 0; i < puzzles.length; i++) {
+                    String line = in.readLine();
+                    if (line == null) {
+                        throw new EOFException("Worker gave up on shard " + shard.index);
+                    }
+                    if (!valid(line)) {
+                        throw new IOException("Worker sent a bad result for shard " + shard.index);
+                    }
+                    record(link, shard, line);
+                }
+                String footer = in.readLine();
+                if (footer == null || !footer.equals("DONE " + shard.index + " " + puzzles.length)) {
+                    throw new EOFException("Worker gave up on shard " + shard.index);
+                }
+                complete(link, shard);
+                shard = null;
+            }
+            out.write("STOP\n");
+            out.flush();
+        } catch (IOException | NumberFormatException ex) {
+            // Lost the worker; the rest of its shard is handed out again.
+        } finally {
+            synchronized (this) {
+                if (shard != null) {
+                    release(link, shard);
+                }
+                link.shard = null;
+                connections.remove(link);
+                active--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Picks the next shard for a worker: one waiting to be handed out again,
+     * or else the next one read from the corpus. If there is neither, it
+     * waits for a shard to fall behind, and hands out a copy of that.
+     *
+     * @param link the connection to the worker.
+     * @return the shard, or null once every shard is done.
+     */
+    private synchronized Shard next(Link link) throws InterruptedIOException {
+        while (!finished() && failure == null) {
+            Shard shard = pending.poll();
+            if (shard == null) {
+                shard = fresh.poll();
+                if (shard != null) {
+                    // Make room for the reader.
+                    notifyAll();
+                }
+            }
+            if (shard != null) {
+                shard.holders++;
+                shard.started = System.nanoTime();
+                return link.hold(shard);
+            }
+
+            long timeout = 0;
+            if (finished > 0) {
+                long limit = 2 * busy / finished;
+                long now = System.nanoTime();
+                for (Shard straggler : open.values()) {
+                    if (!straggler.done && straggler.holders == 1) {
+                        long left = straggler.started + limit - now;
+                        if (left <= 0) {
+                            straggler.holders++;
+                            return link.hold(straggler);
+                        }
+                        long millis = left / 1000000 + 1;
+                        timeout = timeout == 0 ? millis : Math.min(timeout, millis);
+                    }
+                }
+            }
+            try {
+                wait(timeout);
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the corpus one shard at a time, staying a few shards ahead of the
+     * workers, but no more than two shards for each connected worker ahead of
+     * the results written. The lines are read without holding the coordinator's lock, so
+     * a slow corpus holds up nobody but the workers waiting for it.
+     */
+    private void read() {
+        while (true) {
+            synchronized (this) {
+                while ((fresh.size() >= AHEAD || read - written >= AHEAD + 2 * active) && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+
+            List<String> puzzles = new ArrayList<>(shardSize);
+            IOException error = null;
+            try {
+                String line;
+                while (puzzles.size() < shardSize && (line = corpus.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        puzzles.add(line.trim());
+                    }
+                }
+            } catch (IOException ex) {
+                error = ex;
+            }
+
+            synchronized (this) {
+                notifyAll();
+                if (error != null) {
+                    failure = error;
+                    return;
+                }
+                if (puzzles.isEmpty()) {
+                    exhausted = true;
+                    return;
+                }
+                Shard shard = new Shard(read++, puzzles.toArray(new String[puzzles.size()]));
+                open.put(shard.index, shard);
+                fresh.add(shard);
+            }
+        }
+    }
+
+    /**
+     * Stores the result of the next puzzle a worker was given, unless another
+     * worker got there first.
+     *
+     * @param link the connection to the worker.
+     * @param shard the shard.
+     * @param line the result.
+     */
+    private synchronized void record(Link link, Shard shard, String line) {
+        int puzzle = link.puzzles[link.received++];
+        link.since = System.nanoTime();
+        if (shard.results[puzzle] == null) {
+            shard.results[puzzle] = line;
+            shard.left--;
+        }
+    }
+
+    /**
+     * Marks a shard as done once a worker has sent back every result it was
+     * asked for, and writes every done shard which is next in line.
+     *
+     * @param link the connection to the worker.
+     * @param shard the shard.
+     */
+    private synchronized void complete(Link link, Shard shard) {
+        link.shard = null;
+        shard.holders--;
+        if (!shard.done) {
+            shard.done = true;
+            finished++;
+            busy += System.nanoTime() - shard.started;
+            write();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gives up a shard held by a lost worker. The puzzle the worker was on is
+     * blamed, and written unsolved once too many workers have been lost on it.
+     * The rest of the shard is handed out again if nobody else holds it.
+     *
+     * @param link the connection to the worker.
+     * @param shard the shard.
+     */
+    private void release(Link link, Shard shard) {
+        shard.holders--;
+        if (link.received < link.puzzles.length) {
+            int puzzle = link.puzzles[link.received];
+            if (shard.results[puzzle] == null && ++shard.failures[puzzle] >= ATTEMPTS) {
+                System.err.println("Giving up on puzzle " + puzzle + " of shard " + shard.index
+                        + " after " + ATTEMPTS + " lost workers");
+                shard.results[puzzle] = Worker.clean(shard.puzzles[puzzle]);
+                shard.left--;
+            }
+        }
+        if (shard.done || shard.holders > 0) {
+            return;
+        }
+        if (shard.left > 0) {
+            pending.addFirst(shard);
+        } else {
+            shard.done = true;
+            write();
+        }
+    }
+
+    /**
+     * Writes the results of every done shard which is next in line, and
+     * forgets them.
+     */
+    private void write() {
+        Shard shard;
+        while ((shard = open.get(written)) != null && shard.done) {
+            for (String result : shard.results) {
+                output.println(result);
+                if (result.indexOf('.') != -1) {
+                    unsolved++;
+                }
+            }
+            open.remove(written++);
+        }
+        output.flush();
+    }
+
+    /**
+     * @param line a result sent by a worker.
+     * @return whether it has 81 fields, each a digit 1-9 or '.'.
+     */
+    private static boolean valid(String line) {
+        if (line.length() != 81) {
+            return false;
+        }
+        for (int i = 0; i < 81; i++) {
+            char c = line.charAt(i);
+            if (c != '.' && (c < '1' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean finished() {
+        return exhausted && written == read;
+    }
+
+    /**
+     * Drops every worker which has spent longer than the timeout on a single
+     * puzzle. If it was started by the coordinator it is killed and replaced
+     * right away, without using up the replacements for workers which die.
+     *
+     * @throws IOException if a replacement could not be started.
+     */
+    private void expire() throws IOException {
+        long now = System.nanoTime();
+        for (Link link : connections) {
+            if (link.shard != null && now - link.since > timeout * 1000000) {
+                System.err.println("Dropping the worker on shard " + link.shard.index + " after " + timeout
+                        + " ms without a result");
+                link.shard = null;
+                if (link.process != null && processes.values().remove(link.process)) {
+                    link.process.destroy();
+                    start();
+                }
+                try {
+                    link.socket.close();
+                } catch (IOException ex) {
+                    // Already closed.
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets worker processes which have exited, starting a new one for each
+     * as long as there are replacements left.
+     */
+    private void replaceDead() throws IOException {
+        int dead = 0;
+        for (Iterator<Process> it = processes.values().iterator(); it.hasNext();) {
+            try {
+                it.next().exitValue();
+                it.remove();
+                dead++;
+            } catch (IllegalThreadStateException ex) {
+                // Still running.
+            }
+        }
+        for (; dead > 0 && replacements > 0; dead--) {
+            replacements--;
+            start();
+        }
+    }
+
+    private static class Shard {
+
+        private final int index;
+        private final String[] puzzles;
+        private final String[] results;
+        private final int[] failures;
+        private int left;
+        private boolean done;
+        private int holders;
+        private long started;
+
+        public Shard(int index, String[] puzzles) {
+            this.index = index;
+            this.puzzles = puzzles;
+            results = new String[puzzles.length];
+            failures = new int[puzzles.length];
+            left = puzzles.length;
+        }
+    }
+
+    private static class Link {
+
+        private final Socket socket;
+        private Process process;
+        private Shard shard;
+        private int[] puzzles;
+        private int received;
+        private long since;
+
+        public Link(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Takes on a shard, asking for the puzzles of it which are still
+         * unsolved.
+         *
+         * @param shard the shard.
+         * @return the shard.
+         */
+        public Shard hold(Shard shard) {
+            this.shard = shard;
+            puzzles = new int[shard.left];
+            int n = 0;
+            for (int i = 0; i < shard.results.length; i++) {
+                if (shard.results[i] == null) {
+                    puzzles[n++] = i;
+                }
+            }
+            received = 0;
+            since = System.nanoTime();
+            return shard;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package sudoku;
+
+import java.util.*;
+
+/**
+ * A backtracking search for the solution of a Sudoku, which learns from its
+ * dead ends.
+ *
+ * Every time a branch fails, the assignments responsible for the failure are
+ * traced back to a nogood: a small set of field=value assignments which can't
+ * all hold at once. The nogoods are kept in a bounded database, indexed by
+ * assignment, and used to prune later branches. After learning a nogood the
+ * search jumps back to the deepest branch that nogood still depends on,
+ * rather than just the latest one.
+ */
+public class NogoodSearch {
+
+    private static final int[][] UNITS = new int[27][9];
+    private static final int[][] PEERS = new int[81][20];
+
+    static {
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                UNITS[i][j] = i * 9 + j;
+                UNITS[9 + i][j] = j * 9 + i;
+                UNITS[18 + i][j] = ((i / 3) * 3 + j / 3) * 9 + (i % 3) * 3 + j % 3;
+            }
+        }
+        for (int cell = 0; cell < 81; cell++) {
+            int n = 0;
+            for (int other = 0; other < 81; other++) {
+                if (other != cell && (other / 9 == cell / 9 || other % 9 == cell % 9
+                        || (other / 27 == cell / 27 && (other % 9) / 3 == (cell % 9) / 3))) {
+                    PEERS[cell][n++] = other;
+                }
+            }
+        }
+    }
+    private final char[][] state;
+    private final int capacity;
+    private final int[] value = new int[81];
+    private final int[] levels = new int[81];
+    private final int[][] reasons = new int[81][];
+    private final int[][] eliminated = new int[729][];
+    private final int[] trail = new int[81];
+    private final int[] eliminations = new int[729];
+    private final int[] trailLimits = new int[82];
+    private final int[] eliminationLimits = new int[82];
+    private int trailSize;
+    private int eliminationSize;
+    private int propagated;
+    private int level;
+    private final List<Nogood> nogoods = new ArrayList<>();
+    private final List<List<Nogood>> index = new ArrayList<>(729);
+    private double bump = 1;
+    private final int[] marks = new int[729];
+    private int stamp;
+    private final int[] collected = new int[729];
+    private int collectedSize;
+    private long nodes;
+    private long conflicts;
+
+    /**
+     * Readies a search over the given state, keeping at most 2000 nogoods.
+     *
+     * @param state the fields of the Sudoku, where anything but the digits 1-9
+     * is taken to be empty.
+     */
+    public NogoodSearch(char[][] state) {
+        this(state, 2000);
+    }
+
+    /**
+     * Readies a search over the given state.
+     *
+     * @param state the fields of the Sudoku, where anything but the digits 1-9
+     * is taken to be empty.
+     * @param capacity the most nogoods to keep. Once full, the least used are
+     * forgotten until half of them are left.
+     */
+    public NogoodSearch(char[][] state, int capacity) {
+        this.state = state;
+        this.capacity = capacity;
+        for (int lit = 0; lit < 729; lit++) {
+            index.add(new ArrayList<Nogood>());
+        }
+    }
+
+    /**
+     * Searches for a solution. If one is found, it is written into the state.
+     * Every call starts afresh from the fields as they are now, so the state
+     * may be changed between calls.
+     *
+     * @return whether a solution was found.
+     */
+    public boolean solve() {
+        reset();
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                char c = state[row][col];
+                if (c >= '1' && c <= '9') {
+                    int lit = lit(row * 9 + col, c - '0');
+                    if (eliminated[lit] != null) {
+                        return false;
+                    }
+                    assign(lit, new int[0]);
+                }
+            }
+        }
+
+        while (true) {
+            int[] conflict = propagate();
+            if (conflict != null) {
+                conflicts++;
+                int top = 0;
+                for (int lit : conflict) {
+                    top = Math.max(top, levels[lit / 9]);
+                }
+                if (top == 0) {
+                    return false;
+                }
+                if (top < level) {
+                    backjump(top);
+                }
+                learn(conflict);
+            } else {
+                int cell = pickCell();
+                if (cell == -1) {
+                    for (int i = 0; i < 81; i++) {
+                        state[i / 9][i % 9] = (char) ('0' + value[i]);
+                    }
+                    return true;
+                }
+                nodes++;
+                level++;
+                trailLimits[level] = trailSize;
+                eliminationLimits[level] = eliminationSize;
+                for (int digit = 1; digit <= 9; digit++) {
+                    if (eliminated[lit(cell, digit)] == null) {
+                        assign(lit(cell, digit), null);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of branches tried so far.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of dead ends hit so far.
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the number of nogoods currently kept.
+     */
+    public int getNogoods() {
+        return nogoods.size();
+    }
+
+    /**
+     * Undoes every assignment and elimination, and forgets the nogoods, as
+     * they may rest on fields which have since changed.
+     */
+    private void reset() {
+        while (trailSize > 0) {
+            value[trail[--trailSize] / 9] = 0;
+        }
+        while (eliminationSize > 0) {
+            eliminated[eliminations[--eliminationSize]] = null;
+        }
+        propagated = 0;
+        level = 0;
+        nogoods.clear();
+        for (List<Nogood> list : index) {
+            list.clear();
+        }
+        bump = 1;
+    }
+
+    private static int lit(int cell, int digit) {
+        return cell * 9 + digit - 1;
+    }
+
+    /**
+     * Fills a field and rules its value out for all of its peers.
+     *
+     * @param lit the field=value assignment.
+     * @param reason the assignments which forced it, or null for a branch.
+     */
+    private void assign(int lit, int[] reason) {
+        int cell = lit / 9;
+        int digit = lit % 9 + 1;
+        value[cell] = digit;
+        levels[cell] = level;
+        reasons[cell] = reason;
+        trail[trailSize++] = lit;
+
+        int[] because = {lit};
+        for (int peer : PEERS[cell]) {
+            if (value[peer] == 0) {
+                eliminate(lit(peer, digit), because);
+            }
+        }
+    }
+
+    /**
+     * Rules out an assignment, unless it already is.
+     *
+     * @param lit the field=value assignment.
+     * @param reason the assignments which rule it out.
+     */
+    private void eliminate(int lit, int[] reason) {
+        if (eliminated[lit] == null) {
+            eliminated[lit] = reason;
+            eliminations[eliminationSize++] = lit;
+        }
+    }
+
+    /**
+     * Fills every field which has only one possible value, or which is the
+     * only place left for a value in some row, column or block, and applies
+     * the nogoods, until nothing changes.
+     *
+     * @return the assignments behind a dead end, or null if there is none.
+     */
+    private int[] propagate() {
+        boolean changed = true;
+        while (changed) {
+            while (propagated < trailSize) {
+                for (Nogood nogood : index.get(trail[propagated++])) {
+                    int[] conflict = apply(nogood);
+                    if (conflict != null) {
+                        return conflict;
+                    }
+                }
+            }
+
+            for (int cell = 0; cell < 81; cell++) {
+                if (value[cell] != 0) {
+                    continue;
+                }
+                int hit = 0;
+                int count = 0;
+                for (int digit = 1; digit <= 9; digit++) {
+                    if (eliminated[lit(cell, digit)] == null) {
+                        hit = digit;
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    return explainField(cell, 0);
+                } else if (count == 1) {
+                    assign(lit(cell, hit), explainField(cell, hit));
+                }
+            }
+
+            for (int unit = 0; unit < 27; unit++) {
+                for (int digit = 1; digit <= 9; digit++) {
+                    int hit = -1;
+                    int count = 0;
+                    for (int cell : UNITS[unit]) {
+                        if (value[cell] == digit) {
+                            count = -1;
+                            break;
+                        }
+                        if (value[cell] == 0 && eliminated[lit(cell, digit)] == null) {
+                            hit = cell;
+                            count++;
+                        }
+                    }
+                    if (count == 0) {
+                        return explainUnit(unit, digit, -1);
+                    } else if (count == 1) {
+                        assign(lit(hit, digit), explainUnit(unit, digit, hit));
+                    }
+                }
+            }
+
+            changed = propagated < trailSize;
+        }
+        return null;
+    }
+
+    /**
+     * Applies a nogood: if all but one of its assignments hold, the last one
+     * is ruled out.
+     *
+     * @param nogood the nogood.
+     * @return the nogood's assignments if they all hold, otherwise null.
+     */
+    private int[] apply(Nogood nogood) {
+        int open = -1;
+        for (int lit : nogood.lits) {
+            int cell = lit / 9;
+            if (value[cell] == lit % 9 + 1) {
+                continue;
+            }
+            if (value[cell] != 0 || eliminated[lit] != null || open != -1) {
+                return null;
+            }
+            open = lit;
+        }
+
+        nogood.activity += bump;
+        if (open == -1) {
+            return nogood.lits;
+        }
+        int[] reason = new int[nogood.lits.length - 1];
+        int n = 0;
+        for (int lit : nogood.lits) {
+            if (lit != open) {
+                reason[n++] = lit;
+            }
+        }
+        eliminate(open, reason);
+        return null;
+    }
+
+    /**
+     * Traces a dead end back to a nogood, jumps back to the deepest branch
+     * the nogood depends on and stores it.
+     *
+     * @param conflict the assignments behind the dead end.
+     */
+    private void learn(int[] conflict) {
+        boolean[] seen = new boolean[81];
+        List<Integer> lits = new ArrayList<>();
+        int pending = 0;
+        int[] reason = conflict;
+        int i = trailSize;
+        int uip;
+        while (true) {
+            for (int lit : reason) {
+                int cell = lit / 9;
+                if (seen[cell] || levels[cell] == 0) {
+                    continue;
+                }
+                seen[cell] = true;
+                if (levels[cell] == level) {
+                    pending++;
+                } else {
+                    lits.add(lit);
+                }
+            }
+            do {
+                i--;
+            } while (!seen[trail[i] / 9]);
+            uip = trail[i];
+            if (--pending == 0) {
+                break;
+            }
+            reason = reasons[uip / 9];
+        }
+
+        int target = 0;
+        for (int lit : lits) {
+            target = Math.max(target, levels[lit / 9]);
+        }
+        lits.add(uip);
+        backjump(target);
+
+        if (nogoods.size() >= capacity) {
+            forget();
+        }
+        Nogood nogood = new Nogood(lits);
+        nogoods.add(nogood);
+        for (int lit : nogood.lits) {
+            index.get(lit).add(nogood);
+        }
+        apply(nogood);
+
+        bump /= 0.95;
+        if (bump > 1e100) {
+            for (Nogood other : nogoods) {
+                other.activity *= 1e-100;
+            }
+            bump *= 1e-100;
+        }
+    }
+
+    /**
+     * Undoes every assignment and elimination made below the given level. The
+     * nogoods are applied anew afterwards, as some of the eliminations they
+     * had been blocked by may now be gone.
+     *
+     * @param target the level to return to.
+     */
+    private void backjump(int target) {
+        while (trailSize > trailLimits[target + 1]) {
+            value[trail[--trailSize] / 9] = 0;
+        }
+        while (eliminationSize > eliminationLimits[target + 1]) {
+            eliminated[eliminations[--eliminationSize]] = null;
+        }
+        propagated = 0;
+        level = target;
+    }
+
+    /**
+     * Forgets the least used nogoods until at most half the capacity is left.
+     * Short nogoods prune the most, so they are only forgotten once all the
+     * longer ones are gone.
+     */
+    private void forget() {
+        List<Nogood> sorted = new ArrayList<>(nogoods);
+        Collections.sort(sorted, new Comparator<Nogood>() {
+            @Override
+            public int compare(Nogood a, Nogood b) {
+                return Double.compare(a.activity, b.activity);
+            }
+        });
+        Set<Nogood> dropped = new HashSet<>();
+        int excess = nogoods.size() - capacity / 2;
+        for (int pass = 0; pass < 2; pass++) {
+            for (Nogood nogood : sorted) {
+                if (dropped.size() == excess) {
+                    break;
+                }
+                if (pass == 1 || nogood.lits.length > 2) {
+                    dropped.add(nogood);
+                }
+            }
+        }
+        nogoods.removeAll(dropped);
+        for (List<Nogood> list : index) {
+            list.removeAll(dropped);
+        }
+    }
+
+    /**
+     * @return the empty field with the fewest possible values, or -1 if every
+     * field is filled.
+     */
+    private int pickCell() {
+        int best = -1;
+        int bestCount = 10;
+        for (int cell = 0; cell < 81; cell++) {
+            if (value[cell] != 0) {
+                continue;
+            }
+            int count = 0;
+            for (int digit = 1; digit <= 9; digit++) {
+                if (eliminated[lit(cell, digit)] == null) {
+                    count++;
+                }
+            }
+            if (count < bestCount) {
+                best = cell;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Collects the assignments which rule out the values of an empty field.
+     *
+     * @param cell the field.
+     * @param skip a value to leave out, or 0.
+     * @return the assignments.
+     */
+    private int[] explainField(int cell, int skip) {
+        stamp++;
+        collectedSize = 0;
+        for (int digit = 1; digit <= 9; digit++) {
+            if (digit != skip) {
+                collect(eliminated[lit(cell, digit)]);
+            }
+        }
+        return Arrays.copyOf(collected, collectedSize);
+    }
+
+    /**
+     * Collects the assignments which keep a value out of the fields of a row,
+     * column or block.
+     *
+     * @param unit the row, column or block.
+     * @param digit the value.
+     * @param skip a field to leave out, or -1.
+     * @return the assignments.
+     */
+    private int[] explainUnit(int unit, int digit, int skip) {
+        stamp++;
+        collectedSize = 0;
+        for (int cell : UNITS[unit]) {
+            if (cell == skip) {
+                continue;
+            }
+            if (value[cell] != 0) {
+                collect(new int[]{lit(cell, value[cell])});
+            } else {
+                collect(eliminated[lit(cell, digit)]);
+            }
+        }
+        return Arrays.copyOf(collected, collectedSize);
+    }
+
+    private void collect(int[] lits) {
+        for (int lit : lits) {
+            if (marks[lit] != stamp) {
+                marks[lit] = stamp;
+                collected[collectedSize++] = lit;
+            }
+        }
+    }
+
+    private static class Nogood {
+
+        private final int[] lits;
+        private double activity;
+
+        public Nogood(List<Integer> lits) {
+            this.lits = new int[lits.size()];
+            for (int i = 0; i < this.lits.length; i++) {
+                this.lits[i] = lits.get(i);
+            }
+        }
+    }
+}
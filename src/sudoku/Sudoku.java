@@ -8,6 +8,7 @@ public class Sudoku {
     private final char empty = '.';
     private final char[] values = "123456789".toCharArray();
     public final int GOAL = 81;
+    private NogoodSearch lastSearch;
 
     /**
      * Construct a Sudoku from a two-dimensional array of filled fields.
@@ -17,14 +18,55 @@ public class Sudoku {
      */
     public Sudoku(String path) {
         try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            for (int row = 0; row < 9; row++) {
-                System.arraycopy(reader.readLine().toCharArray(), 0, state[row], 0, 9);
-            }
+            load(reader);
         } catch (IOException ex) {
             System.out.println("An error has occured: " + ex);
         }
     }
 
+    /**
+     * Construct a Sudoku from nine lines of text read from the given reader.
+     * The reader is left open.
+     *
+     * @param reader the reader to read the fields from.
+     * @throws IOException if the reader fails, runs out of lines or a row is
+     * too short.
+     */
+    public Sudoku(BufferedReader reader) throws IOException {
+        load(reader);
+    }
+
+    /**
+     * Construct a Sudoku from a copy of the given fields.
+     *
+     * @param fields nine rows of nine fields each.
+     */
+    public Sudoku(char[][] fields) {
+        for (int row = 0; row < 9; row++) {
+            System.arraycopy(fields[row], 0, state[row], 0, 9);
+        }
+    }
+
+    /**
+     * Reads nine rows of nine fields each into the state.
+     *
+     * @param reader the reader to read the rows from.
+     * @throws IOException if the reader fails, runs out of lines or a row is
+     * too short.
+     */
+    private void load(BufferedReader reader) throws IOException {
+        for (int row = 0; row < 9; row++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("Expected 9 rows, got " + row);
+            }
+            if (line.length() < 9) {
+                throw new IOException("Row " + (row + 1) + " is too short");
+            }
+            System.arraycopy(line.toCharArray(), 0, state[row], 0, 9);
+        }
+    }
+
     @Override
     public String toString() {
         String string = "";
@@ -99,6 +141,43 @@ public class Sudoku {
 
     }
 
+    /**
+     * Solve the Sudoku by a backtracking search which learns from its dead
+     * ends. Unlike the other methods, this one fills out either every field
+     * or none at all.
+     *
+     * @return the number of new entries.
+     */
+    public int search() {
+        int before = progress();
+        lastSearch = new NogoodSearch(state);
+        lastSearch.solve();
+        return progress() - before;
+    }
+
+    /**
+     * Solve the Sudoku the quickest way there is: by search first, and only
+     * if that fails by the other methods, which may still fill out some of
+     * the fields.
+     *
+     * @return the number of new entries.
+     */
+    public int solveAll() {
+        int found = search();
+        if (!finished()) {
+            found += solve();
+        }
+        return found;
+    }
+
+    /**
+     * @return the search run by the latest call to {@link #search()}, for its
+     * statistics, or null if there has been none.
+     */
+    public NogoodSearch getLastSearch() {
+        return lastSearch;
+    }
+
     /**
      * Attempt to solve the Sudoku by filling fields where, at first glance,
      * there is only one possible character to insert.
@@ -0,0 +1,134 @@
+package sudoku;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * A worker process for batch solving. It connects to a {@link Coordinator},
+ * solves the shards of puzzles it is handed and sends back the results, until
+ * it is told to stop.
+ */
+public class Worker {
+
+    private final String host;
+    private final int port;
+    private final int id;
+
+    /**
+     * Readies a worker process started by the coordinator at the given
+     * address.
+     *
+     * @param host the host of the coordinator.
+     * @param port the port of the coordinator.
+     * @param id the number the coordinator gave the process, or -1 if it was
+     * not started by the coordinator.
+     */
+    public Worker(String host, int port, int id) {
+        this.host = host;
+        this.port = port;
+        this.id = id;
+    }
+
+    /**
+     * Works for the coordinator given by the arguments <code>worker host port
+     * [id]</code>.
+     *
+     * @param args the command-line arguments.
+     * @return 0 once told to stop, and 2 on bad usage or a lost connection.
+     */
+    public static int work(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: sudoku worker <host> <port> [id]");
+            return 2;
+        }
+        // The coordinator's standard output carries the results, so anything
+        // printed along the way goes to standard error instead.
+        System.setOut(System.err);
+        try {
+            int id = args.length == 4 ? Integer.parseInt(args[3]) : -1;
+            new Worker(args[1], Integer.parseInt(args[2]), id).work();
+            return 0;
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("Worker failed: " + ex);
+            return 2;
+        }
+    }
+
+    /**
+     * Solves shards until the coordinator says stop, or hangs up.
+     *
+     * @throws IOException if the connection fails.
+     */
+    public void work() throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "US-ASCII"));
+            out.write("HELLO " + id + "\n");
+            out.flush();
+            while (true) {
+                String header = in.readLine();
+                if (header == null) {
+                    return;
+                }
+                String[] parts = header.split(" ");
+                if (parts[0].equals("STOP")) {
+                    return;
+                }
+                int count = Integer.parseInt(parts[2]);
+                String[] puzzles = new String[count];
+                for (int i = 0; i < count; i++) {
+                    puzzles[i] = in.readLine();
+                    if (puzzles[i] == null) {
+                        throw new EOFException("Shard " + parts[1] + " was cut short");
+                    }
+                }
+                // Each result is sent as soon as it is found, so the
+                // coordinator keeps it even if a later puzzle is never solved.
+                for (String puzzle : puzzles) {
+                    out.write(solve(puzzle) + "\n");
+                    out.flush();
+                }
+                out.write("DONE " + parts[1] + " " + count + "\n");
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Solves a Sudoku written on a single line, row by row.
+     *
+     * @param line the 81 fields, where anything but the digits 1-9 is empty.
+     * @return the fields after solving, with '.' for those left empty.
+     */
+    public static String solve(String line) {
+        String fields = clean(line);
+        char[][] rows = new char[9][];
+        for (int row = 0; row < 9; row++) {
+            rows[row] = fields.substring(row * 9, row * 9 + 9).toCharArray();
+        }
+        Sudoku s = new Sudoku(rows);
+        s.solveAll();
+
+        StringBuilder result = new StringBuilder(81);
+        for (char[] row : s.getState()) {
+            result.append(row);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Cleans up a Sudoku written on a single line, row by row.
+     *
+     * @param line the fields, where anything but the digits 1-9 is empty.
+     * Fields missing at the end are empty as well.
+     * @return the 81 fields, with '.' for those which are empty.
+     */
+    public static String clean(String line) {
+        StringBuilder fields = new StringBuilder(81);
+        for (int i = 0; i < 81; i++) {
+            char c = i < line.length() ? line.charAt(i) : '.';
+            fields.append(c >= '1' && c <= '9' ? c : '.');
+        }
+        return fields.toString();
+    }
+}